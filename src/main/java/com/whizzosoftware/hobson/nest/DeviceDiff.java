@@ -0,0 +1,75 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2014 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.nest;
+
+import java.util.*;
+
+/**
+ * The difference between the set of device IDs already known to the plugin and the set of device IDs reported
+ * in a Nest structure.
+ *
+ * @author Dan Noguerol
+ */
+public class DeviceDiff {
+    private final List<String> added = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private final List<String> updated = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param knownIds the IDs of devices that have already been published
+     * @param currentIds the IDs of devices reported in the latest status
+     */
+    public DeviceDiff(Set<String> knownIds, String[] currentIds) {
+        Set<String> current = new HashSet<>(currentIds.length);
+        for (String id : currentIds) {
+            if (current.add(id)) {
+                if (knownIds.contains(id)) {
+                    updated.add(id);
+                } else {
+                    added.add(id);
+                }
+            }
+        }
+        for (String id : knownIds) {
+            if (!current.contains(id)) {
+                removed.add(id);
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs of devices that are reported but not yet known.
+     *
+     * @return a List of device IDs
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * Returns the IDs of devices that are known but no longer reported.
+     *
+     * @return a List of device IDs
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Returns the IDs of devices that are both known and reported.
+     *
+     * @return a List of device IDs
+     */
+    public List<String> getUpdated() {
+        return updated;
+    }
+}
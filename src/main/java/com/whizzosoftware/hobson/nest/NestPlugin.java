@@ -9,8 +9,6 @@
 */
 package com.whizzosoftware.hobson.nest;
 
-import com.whizzosoftware.hobson.api.device.DeviceNotFoundException;
-import com.whizzosoftware.hobson.api.device.proxy.HobsonDeviceProxy;
 import com.whizzosoftware.hobson.api.plugin.PluginStatus;
 import com.whizzosoftware.hobson.api.plugin.http.AbstractHttpClientPlugin;
 import com.whizzosoftware.hobson.api.plugin.http.HttpRequest;
@@ -39,8 +37,17 @@ public class NestPlugin extends AbstractHttpClientPlugin {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private static final String USER_AGENT = "Nest/3.0.1.15 (iOS) os=6.0 platform=iPad3,1";
+    private static final int PROCESSING_THREAD_COUNT = 1;
+    private static final int PROCESSING_QUEUE_CAPACITY = 4;
+    private static final int MAX_IDLE_CONNECTIONS = 2;
+    private static final long CONNECTION_IDLE_TIMEOUT = 120000;
 
-    private LoginContext nestContext;
+    private volatile LoginContext nestContext;
+    private volatile ThermostatThresholds thresholds;
+    private ResponsePipeline responsePipeline;
+    private TransportClient transportClient;
+    // only accessed from the response pipeline's worker thread
+    private final Map<String,NestThermostat> thermostats = new HashMap<>();
 
     public NestPlugin(String pluginId, String version, String description) {
         super(pluginId, version, description);
@@ -51,10 +58,36 @@ public class NestPlugin extends AbstractHttpClientPlugin {
     }
 
     public void onStartup(PropertyContainer config) {
+        // a single worker keeps status updates applied in the order they were received
+        responsePipeline = new ResponsePipeline("nest-processing", PROCESSING_THREAD_COUNT, PROCESSING_QUEUE_CAPACITY, new ResponsePipeline.Handler() {
+            @Override
+            public void onResponse(Object context, String body) throws Exception {
+                processResponse(context, body);
+            }
+        });
+        // requests to the transport host use persistent connections so they don't pay for a new handshake every time
+        transportClient = new TransportClient(new TransportClient.Listener() {
+            @Override
+            public void onTransportResponse(int statusCode, String body, Object context) {
+                onTransportHttpResponse(statusCode, body, context);
+            }
+
+            @Override
+            public void onTransportFailure(Throwable cause, Object context) {
+                onHttpRequestFailure(cause, context);
+            }
+        }, MAX_IDLE_CONNECTIONS, CONNECTION_IDLE_TIMEOUT);
         processConfiguration(config);
     }
 
-    public void onShutdown() {}
+    public void onShutdown() {
+        if (transportClient != null) {
+            transportClient.shutdown();
+        }
+        if (responsePipeline != null) {
+            responsePipeline.shutdown();
+        }
+    }
 
     @Override
     public long getRefreshInterval() {
@@ -66,7 +99,19 @@ public class NestPlugin extends AbstractHttpClientPlugin {
         processConfiguration(config);
     }
 
+    /**
+     * Returns the thresholds that thermostat updates should be evaluated against.
+     *
+     * @return a ThermostatThresholds instance (or null if not yet configured)
+     */
+    ThermostatThresholds getThresholds() {
+        return thresholds;
+    }
+
     private void processConfiguration(PropertyContainer config) {
+        thresholds = new ThermostatThresholds(config);
+        logger.debug("Using thermostat thresholds: {}", thresholds);
+
         // get the username and password from configuration
         String username = (String)config.getPropertyValue("username");
         String password = (String)config.getPropertyValue("password");
@@ -83,8 +128,25 @@ public class NestPlugin extends AbstractHttpClientPlugin {
     @Override
     public void onRefresh() {
         if (nestContext != null) {
-            logger.debug("Refreshing Nest status");
-            sendStatusRequest();
+            transportClient.evictIdle();
+
+            // don't pile up more status responses while the previous ones are still being sent or processed
+            if (transportClient.getPendingCount() > 0 || responsePipeline.getPendingCount() > 0) {
+                logger.debug("Skipping Nest status refresh; {} request(s) and {} response(s) still pending", transportClient.getPendingCount(), responsePipeline.getPendingCount());
+            } else {
+                logger.debug("Refreshing Nest status");
+                sendStatusRequest();
+            }
+            logger.debug(
+                "Response processing: {} processed, {} rejected, queue time avg/max {}/{} ms, processing time avg/max {}/{} ms",
+                responsePipeline.getProcessedCount(),
+                responsePipeline.getRejectedCount(),
+                responsePipeline.getAverageQueueTime(),
+                responsePipeline.getMaxQueueTime(),
+                responsePipeline.getAverageProcessingTime(),
+                responsePipeline.getMaxProcessingTime()
+            );
+            transportClient.logStatistics();
         }
     }
 
@@ -125,10 +187,11 @@ public class NestPlugin extends AbstractHttpClientPlugin {
             headers.put("X-nl-user-id", nestContext.getUser());
             headers.put("user-agent", USER_AGENT);
 
-            sendHttpRequest(
+            transportClient.sendRequest(
                 uri,
-                HttpRequest.Method.GET,
+                "GET",
                 headers,
+                null,
                 "status"
             );
         } catch (URISyntaxException e) {
@@ -150,11 +213,10 @@ public class NestPlugin extends AbstractHttpClientPlugin {
             String entity = "{\"target_change_pending\":true,\"target_temperature\":" + t + "}";
             logger.trace("POST data: {}", entity);
 
-            sendHttpRequest(
+            transportClient.sendRequest(
                 uri,
-                HttpRequest.Method.POST,
+                "POST",
                 headers,
-                null,
                 entity.getBytes(),
                 "setTemp"
             );
@@ -166,35 +228,8 @@ public class NestPlugin extends AbstractHttpClientPlugin {
     private void processStatus(Status status) {
         if (status.getStructureCount() > 0) {
             if (status.getStructureCount() == 1) {
-                Structure structure = (Structure) status.getStructures().toArray()[0];
-                String[] devices = structure.getDevices();
-                for (String deviceId : devices) {
-                    if (deviceId.startsWith("device.")) {
-                        deviceId = deviceId.substring(7);
-                    }
-                    Shared sharedDTO = status.getShared(deviceId);
-                    if (sharedDTO != null) {
-                        try {
-                            try {
-                                HobsonDeviceProxy device = getDeviceProxy(deviceId);
-                                logger.debug("Updating state of device: " + deviceId);
-                                if (device instanceof NestThermostat) {
-                                    ((NestThermostat)device).updateStatus(sharedDTO);
-                                } else {
-                                    logger.error("Status update expected device {} to be a thermostat but was: {}", deviceId, device);
-                                }
-                            } catch (DeviceNotFoundException dnfe) {
-                                logger.debug("Creating Nest device: " + deviceId);
-                                NestThermostat nt = new NestThermostat(this, deviceId, sharedDTO, this);
-                                publishDeviceProxy(nt);
-                            }
-                        } catch (Exception e) {
-                            logger.error("Error updating device with ID: " + deviceId, e);
-                        }
-                    } else {
-                        logger.error("Structure defines a device ID that doesn't have a shared record");
-                    }
-                }
+                Structure structure = status.getStructures().iterator().next();
+                reconcileDevices(status, new DeviceDiff(thermostats.keySet(), structure.getDeviceIds()));
             } else {
                 logger.error("Only one Nest structure is supported by this plugin");
                 setStatus(PluginStatus.failed("Only one structure is supported by this plugin"));
@@ -205,42 +240,116 @@ public class NestPlugin extends AbstractHttpClientPlugin {
         }
     }
 
+    /**
+     * Creates, updates and unpublishes thermostats so that they match the devices reported by Nest.
+     *
+     * @param status the latest status
+     * @param diff the difference between the known thermostats and the structure's devices
+     */
+    private void reconcileDevices(Status status, DeviceDiff diff) {
+        for (String deviceId : diff.getRemoved()) {
+            try {
+                logger.debug("Removing Nest device: {}", deviceId);
+                thermostats.remove(deviceId);
+                unpublishDeviceProxy(deviceId);
+            } catch (Exception e) {
+                logger.error("Error removing device with ID: " + deviceId, e);
+            }
+        }
+
+        for (String deviceId : diff.getAdded()) {
+            Shared sharedDTO = status.getShared(deviceId);
+            if (sharedDTO != null) {
+                try {
+                    logger.debug("Creating Nest device: {}", deviceId);
+                    NestThermostat nt = new NestThermostat(this, deviceId, sharedDTO, this);
+                    publishDeviceProxy(nt);
+                    thermostats.put(deviceId, nt);
+                } catch (Exception e) {
+                    logger.error("Error creating device with ID: " + deviceId, e);
+                }
+            } else {
+                logger.error("Structure defines a device ID that doesn't have a shared record: {}", deviceId);
+            }
+        }
+
+        for (String deviceId : diff.getUpdated()) {
+            Shared sharedDTO = status.getShared(deviceId);
+            if (sharedDTO != null) {
+                try {
+                    logger.debug("Updating state of device: {}", deviceId);
+                    thermostats.get(deviceId).updateStatus(sharedDTO);
+                } catch (Exception e) {
+                    logger.error("Error updating device with ID: " + deviceId, e);
+                }
+            } else {
+                logger.error("Structure defines a device ID that doesn't have a shared record: {}", deviceId);
+            }
+        }
+    }
+
     @Override
     protected TypedProperty[] getConfigurationPropertyTypes() {
         return new TypedProperty[] {
             new TypedProperty.Builder("username", "User name", "Your Nest user name (same as web site)", TypedProperty.Type.STRING).build(),
-            new TypedProperty.Builder("password", "Password", "Your Nest password (same as web site)", TypedProperty.Type.SECURE_STRING).build()
+            new TypedProperty.Builder("password", "Password", "Your Nest password (same as web site)", TypedProperty.Type.SECURE_STRING).build(),
+            new TypedProperty.Builder(ThermostatThresholds.PROP_MAX_TEMPERATURE, "Maximum temperature", "Raise an alert when the indoor temperature rises above this value (Celsius)", TypedProperty.Type.NUMBER).build(),
+            new TypedProperty.Builder(ThermostatThresholds.PROP_MIN_TEMPERATURE, "Minimum temperature", "Raise an alert when the indoor temperature falls below this value (Celsius)", TypedProperty.Type.NUMBER).build(),
+            new TypedProperty.Builder(ThermostatThresholds.PROP_MAX_RATE_OF_CHANGE, "Maximum rate of change", "Raise an alert when the indoor temperature changes faster than this value (Celsius per minute)", TypedProperty.Type.NUMBER).build(),
+            new TypedProperty.Builder(ThermostatThresholds.PROP_MAX_TARGET_PENDING, "Maximum pending time", "Raise an alert when a target temperature change has been pending longer than this value (minutes)", TypedProperty.Type.NUMBER).build()
         };
     }
 
     @Override
     public void onHttpResponse(HttpResponse response, Object context) {
+        // this is called on the HTTP client's I/O thread; the login response is small so it is applied directly
+        // rather than queued behind status responses where it could be rejected
         try {
+            String s = response.getBody();
+            logger.debug("Response {} received: {}", context, response.getStatusCode());
+            logger.trace(s);
             if ("login".equals(context)) {
-                String s = response.getBody();
-                JSONObject json = new JSONObject(new JSONTokener(s));
-                logger.debug("Login response received: {}", response.getStatusCode());
-                logger.trace(s);
-                nestContext = new LoginContext(json);
+                nestContext = new LoginContext(new JSONObject(new JSONTokener(s)));
                 logger.debug("Login context received: {}", nestContext);
                 setStatus(PluginStatus.running());
                 sendStatusRequest();
-            } else if ("status".equals(context)) {
-                String s = response.getBody();
-                JSONObject json = new JSONObject(new JSONTokener(s));
-                logger.debug("Status response received: {}", response.getStatusCode());
-                logger.trace(s);
-                Status status = new Status(json);
-                processStatus(status);
-            } else {
-                logger.debug("Response {} received: {}", context, response.getStatusCode());
-                logger.trace(response.getBody());
             }
         } catch (IOException e) {
             logger.error("Error processing HTTP response", e);
         }
     }
 
+    /**
+     * Called from the transport client's thread when a response is received from the Nest transport host.
+     *
+     * @param statusCode the HTTP status code
+     * @param body the response body
+     * @param context the request context
+     */
+    private void onTransportHttpResponse(int statusCode, String body, Object context) {
+        logger.debug("Response {} received: {}", context, statusCode);
+        logger.trace(body);
+        if ("status".equals(context)) {
+            if (statusCode / 100 != 2) {
+                logger.error("Status request failed with HTTP status {}", statusCode);
+            } else if (!responsePipeline.submit(context, body)) {
+                logger.error("Unable to process {} response; processing queue is full", context);
+            }
+        }
+    }
+
+    /**
+     * Parses and applies a response body. This is called from the response pipeline's worker thread.
+     *
+     * @param context the request context
+     * @param body the response body
+     */
+    private void processResponse(Object context, String body) {
+        if ("status".equals(context)) {
+            processStatus(new Status(new JSONObject(new JSONTokener(body))));
+        }
+    }
+
     @Override
     public void onHttpRequestFailure(Throwable cause, Object context) {
         logger.error("HTTP request failed", cause);
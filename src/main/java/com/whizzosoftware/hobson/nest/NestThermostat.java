@@ -19,8 +19,10 @@ import com.whizzosoftware.hobson.nest.dto.Shared;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A Hobson device representing a Nest thermostat.
@@ -30,8 +32,12 @@ import java.util.Map;
 public class NestThermostat extends AbstractHobsonDeviceProxy {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    static final String ALERT_VARIABLE = "alert";
+
     private NestPlugin nestPlugin;
     private Shared initialData;
+    private final ThermostatEvaluator evaluator = new ThermostatEvaluator();
+    private Set<ThermostatEvaluator.Rule> trippedRules = EnumSet.noneOf(ThermostatEvaluator.Rule.class);
 
     NestThermostat(HobsonPlugin plugin, String id, Shared initialData, NestPlugin nestPlugin) {
         super(plugin, id, initialData.getName() != null ? initialData.getName() : "Nest", DeviceType.THERMOSTAT);
@@ -51,8 +57,11 @@ public class NestThermostat extends AbstractHobsonDeviceProxy {
             createDeviceVariable(VariableConstants.INDOOR_TEMP_C, VariableMask.READ_ONLY, currentTempC, now),
             createDeviceVariable(VariableConstants.INDOOR_TEMP_F, VariableMask.READ_ONLY, convertCelsiusToFahrenheit(currentTempC), now),
             createDeviceVariable(VariableConstants.TARGET_TEMP_C, VariableMask.READ_WRITE, targetTempC, now),
-            createDeviceVariable(VariableConstants.TARGET_TEMP_F, VariableMask.READ_WRITE, convertCelsiusToFahrenheit(targetTempC), now)
+            createDeviceVariable(VariableConstants.TARGET_TEMP_F, VariableMask.READ_WRITE, convertCelsiusToFahrenheit(targetTempC), now),
+            createDeviceVariable(ALERT_VARIABLE, VariableMask.READ_ONLY, null, now)
         );
+
+        evaluate(initialData, now);
     }
 
     @Override
@@ -130,8 +139,40 @@ public class NestThermostat extends AbstractHobsonDeviceProxy {
         values.put(VariableConstants.TARGET_TEMP_C, targetTempC);
         values.put(VariableConstants.TARGET_TEMP_F, convertCelsiusToFahrenheit(targetTempC));
 
+        long now = System.currentTimeMillis();
         setVariableValues(values);
-        setLastCheckin(System.currentTimeMillis());
+        setLastCheckin(now);
+
+        evaluate(shared, now);
+    }
+
+    /**
+     * Feeds a status update to the device's evaluator and updates the alert variable as soon as the set of
+     * tripped rules changes.
+     *
+     * @param shared the Shared DTO from the update
+     * @param now the time of the update
+     */
+    private synchronized void evaluate(Shared shared, long now) {
+        Set<ThermostatEvaluator.Rule> tripped = evaluator.update(now, shared.getCurrentTemperature(), shared.getTargetChangePending(), nestPlugin.getThresholds());
+        if (!tripped.equals(trippedRules)) {
+            if (!tripped.isEmpty()) {
+                logger.warn(
+                    "Thermostat {} tripped {} (recent min={}, max={}, mean={}, rate={}/min, pending={} ms)",
+                    getContext().getDeviceId(),
+                    tripped,
+                    evaluator.getMin(),
+                    evaluator.getMax(),
+                    evaluator.getMean(),
+                    evaluator.getRateOfChange(),
+                    evaluator.getTargetPendingTime(now)
+                );
+            } else {
+                logger.info("Thermostat {} alerts cleared", getContext().getDeviceId());
+            }
+            trippedRules = tripped;
+            setVariableValue(ALERT_VARIABLE, tripped.isEmpty() ? null : tripped.toString(), now);
+        }
     }
 
     /**
@@ -0,0 +1,168 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2014 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.nest;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small worker pool that receives raw HTTP response bodies and processes them off the HTTP client's I/O thread.
+ * The queue is bounded so that a slow consumer causes new responses to be rejected rather than piling up in memory.
+ *
+ * @author Dan Noguerol
+ */
+public class ResponsePipeline {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Handler handler;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalQueueTime = new AtomicLong();
+    private final AtomicLong maxQueueTime = new AtomicLong();
+    private final AtomicLong totalProcessingTime = new AtomicLong();
+    private final AtomicLong maxProcessingTime = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param name the name used for the worker threads
+     * @param threadCount the number of worker threads
+     * @param queueCapacity the maximum number of responses that can be waiting for a worker
+     * @param handler the handler that will parse and apply each response
+     */
+    public ResponsePipeline(String name, int threadCount, int queueCapacity, Handler handler) {
+        this.handler = handler;
+        this.executor = new ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueCapacity),
+            new DefaultThreadFactory(name, true),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Queues a response body for processing. This never blocks the calling thread.
+     *
+     * @param context the request context
+     * @param body the response body
+     *
+     * @return true if the response was queued; false if the queue was full or the pipeline has been shut down
+     */
+    public boolean submit(final Object context, final String body) {
+        final long queuedAt = System.nanoTime();
+        pending.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long startedAt = System.nanoTime();
+                    try {
+                        handler.onResponse(context, body);
+                    } catch (Throwable t) {
+                        logger.error("Error processing " + context + " response", t);
+                    } finally {
+                        long queueTime = TimeUnit.NANOSECONDS.toMillis(startedAt - queuedAt);
+                        long processingTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+                        record(queueTime, totalQueueTime, maxQueueTime);
+                        record(processingTime, totalProcessingTime, maxProcessingTime);
+                        processedCount.incrementAndGet();
+                        pending.decrementAndGet();
+                        logger.debug("Processed {} response (queued {} ms, processed in {} ms)", context, queueTime, processingTime);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of responses that are queued or currently being processed.
+     *
+     * @return an int
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the average time (in milliseconds) responses have spent waiting for a worker.
+     *
+     * @return a long
+     */
+    public long getAverageQueueTime() {
+        long count = processedCount.get();
+        return count > 0 ? totalQueueTime.get() / count : 0;
+    }
+
+    public long getMaxQueueTime() {
+        return maxQueueTime.get();
+    }
+
+    /**
+     * Returns the average time (in milliseconds) taken to parse and apply a response.
+     *
+     * @return a long
+     */
+    public long getAverageProcessingTime() {
+        long count = processedCount.get();
+        return count > 0 ? totalProcessingTime.get() / count : 0;
+    }
+
+    public long getMaxProcessingTime() {
+        return maxProcessingTime.get();
+    }
+
+    /**
+     * Stops accepting new responses and discards any that are still queued.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void record(long value, AtomicLong total, AtomicLong max) {
+        total.addAndGet(value);
+        long m;
+        do {
+            m = max.get();
+        } while (value > m && !max.compareAndSet(m, value));
+    }
+
+    /**
+     * Interface for classes that parse and apply a response body.
+     */
+    public interface Handler {
+        void onResponse(Object context, String body) throws Exception;
+    }
+}
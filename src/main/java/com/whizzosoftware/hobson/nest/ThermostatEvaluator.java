@@ -0,0 +1,189 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2014 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.nest;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Keeps running statistics for a single thermostat and evaluates each update against a set of thresholds.
+ * The min, max and mean are taken over a fixed-size window of the most recent samples so memory use is constant
+ * regardless of how long the thermostat runs.
+ *
+ * @author Dan Noguerol
+ */
+public class ThermostatEvaluator {
+    /**
+     * The default number of samples in the rolling window (30 minutes at the plugin's refresh interval).
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 30;
+
+    /**
+     * The weight given to each new sample in the smoothed rate of change.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final double[] window;
+    private int windowStart;
+    private int windowCount;
+    private double windowSum;
+    private long sampleCount;
+    private double rateOfChange;
+    private double lastTemperature;
+    private long lastTime;
+    private Long targetPendingSince;
+
+    public ThermostatEvaluator() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param windowSize the number of recent samples to compute the min, max and mean over
+     */
+    public ThermostatEvaluator(int windowSize) {
+        this.window = new double[windowSize];
+    }
+
+    /**
+     * Updates the running statistics with a new sample and evaluates them against the thresholds.
+     *
+     * @param now the time of the sample in milliseconds
+     * @param currentTempC the current indoor temperature in Celsius
+     * @param targetChangePending whether a target temperature change is pending
+     * @param thresholds the thresholds to evaluate against
+     *
+     * @return the set of rules currently tripped
+     */
+    public Set<Rule> update(long now, Double currentTempC, Boolean targetChangePending, ThermostatThresholds thresholds) {
+        if (currentTempC != null) {
+            double t = currentTempC;
+            if (sampleCount > 0 && now > lastTime) {
+                double rate = (t - lastTemperature) / ((now - lastTime) / 60000.0);
+                // the first measured rate is used as-is so that there's no lag before it can be evaluated
+                rateOfChange = sampleCount == 1 ? rate : rateOfChange + SMOOTHING * (rate - rateOfChange);
+            }
+            addToWindow(t);
+            lastTemperature = t;
+            lastTime = now;
+            sampleCount++;
+        }
+
+        if (Boolean.TRUE.equals(targetChangePending)) {
+            if (targetPendingSince == null) {
+                targetPendingSince = now;
+            }
+        } else {
+            targetPendingSince = null;
+        }
+
+        Set<Rule> tripped = EnumSet.noneOf(Rule.class);
+        if (thresholds != null) {
+            if (currentTempC != null && thresholds.getMaxTemperature() != null && currentTempC > thresholds.getMaxTemperature()) {
+                tripped.add(Rule.MAX_TEMPERATURE);
+            }
+            if (currentTempC != null && thresholds.getMinTemperature() != null && currentTempC < thresholds.getMinTemperature()) {
+                tripped.add(Rule.MIN_TEMPERATURE);
+            }
+            if (sampleCount > 1 && thresholds.getMaxRateOfChange() != null && Math.abs(rateOfChange) > thresholds.getMaxRateOfChange()) {
+                tripped.add(Rule.RATE_OF_CHANGE);
+            }
+            if (thresholds.getMaxTargetPending() != null && getTargetPendingTime(now) / 60000.0 > thresholds.getMaxTargetPending()) {
+                tripped.add(Rule.TARGET_PENDING);
+            }
+        }
+        return tripped;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the lowest temperature in the rolling window.
+     *
+     * @return the temperature in Celsius (or NaN if there are no samples)
+     */
+    public double getMin() {
+        double min = Double.NaN;
+        for (int i = 0; i < windowCount; i++) {
+            double t = window[(windowStart + i) % window.length];
+            if (i == 0 || t < min) {
+                min = t;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Returns the highest temperature in the rolling window.
+     *
+     * @return the temperature in Celsius (or NaN if there are no samples)
+     */
+    public double getMax() {
+        double max = Double.NaN;
+        for (int i = 0; i < windowCount; i++) {
+            double t = window[(windowStart + i) % window.length];
+            if (i == 0 || t > max) {
+                max = t;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the mean temperature over the rolling window.
+     *
+     * @return the temperature in Celsius (or NaN if there are no samples)
+     */
+    public double getMean() {
+        return windowCount > 0 ? windowSum / windowCount : Double.NaN;
+    }
+
+    /**
+     * Returns the smoothed rate of indoor temperature change.
+     *
+     * @return the rate in Celsius per minute
+     */
+    public double getRateOfChange() {
+        return rateOfChange;
+    }
+
+    /**
+     * Returns how long a target temperature change has been pending.
+     *
+     * @param now the current time in milliseconds
+     *
+     * @return the time in milliseconds (or 0 if no change is pending)
+     */
+    public long getTargetPendingTime(long now) {
+        return targetPendingSince != null ? now - targetPendingSince : 0;
+    }
+
+    private void addToWindow(double t) {
+        if (windowCount < window.length) {
+            window[(windowStart + windowCount) % window.length] = t;
+            windowCount++;
+        } else {
+            windowSum -= window[windowStart];
+            window[windowStart] = t;
+            windowStart = (windowStart + 1) % window.length;
+        }
+        windowSum += t;
+    }
+
+    public enum Rule {
+        MAX_TEMPERATURE,
+        MIN_TEMPERATURE,
+        RATE_OF_CHANGE,
+        TARGET_PENDING
+    }
+}
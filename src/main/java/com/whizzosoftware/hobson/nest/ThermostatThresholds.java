@@ -0,0 +1,95 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2014 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.nest;
+
+import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The user-configured limits that thermostat updates are evaluated against. A null limit is disabled.
+ *
+ * @author Dan Noguerol
+ */
+public class ThermostatThresholds {
+    public static final String PROP_MAX_TEMPERATURE = "maxTemperature";
+    public static final String PROP_MIN_TEMPERATURE = "minTemperature";
+    public static final String PROP_MAX_RATE_OF_CHANGE = "maxRateOfChange";
+    public static final String PROP_MAX_TARGET_PENDING = "maxTargetPending";
+
+    private Double maxTemperature;
+    private Double minTemperature;
+    private Double maxRateOfChange;
+    private Double maxTargetPending;
+
+    /**
+     * Constructor.
+     *
+     * @param maxTemperature the maximum indoor temperature in Celsius
+     * @param minTemperature the minimum indoor temperature in Celsius
+     * @param maxRateOfChange the maximum rate of indoor temperature change in Celsius per minute
+     * @param maxTargetPending the maximum number of minutes a target temperature change can be pending
+     */
+    public ThermostatThresholds(Double maxTemperature, Double minTemperature, Double maxRateOfChange, Double maxTargetPending) {
+        this.maxTemperature = maxTemperature;
+        this.minTemperature = minTemperature;
+        this.maxRateOfChange = maxRateOfChange;
+        this.maxTargetPending = maxTargetPending;
+    }
+
+    public ThermostatThresholds(PropertyContainer config) {
+        this(
+            getDouble(config.getPropertyValue(PROP_MAX_TEMPERATURE)),
+            getDouble(config.getPropertyValue(PROP_MIN_TEMPERATURE)),
+            getDouble(config.getPropertyValue(PROP_MAX_RATE_OF_CHANGE)),
+            getDouble(config.getPropertyValue(PROP_MAX_TARGET_PENDING))
+        );
+    }
+
+    public Double getMaxTemperature() {
+        return maxTemperature;
+    }
+
+    public Double getMinTemperature() {
+        return minTemperature;
+    }
+
+    public Double getMaxRateOfChange() {
+        return maxRateOfChange;
+    }
+
+    public Double getMaxTargetPending() {
+        return maxTargetPending;
+    }
+
+    public String toString() {
+        return new ToStringBuilder(this).append("maxTemperature", maxTemperature).append("minTemperature", minTemperature).append("maxRateOfChange", maxRateOfChange).append("maxTargetPending", maxTargetPending).toString();
+    }
+
+    /**
+     * Returns a String or Number configuration value as a Double.
+     *
+     * @param o the object
+     *
+     * @return a Double (or null if it isn't set or can't be converted)
+     */
+    private static Double getDouble(Object o) {
+        if (o instanceof Number) {
+            return ((Number)o).doubleValue();
+        } else if (o instanceof String && ((String)o).trim().length() > 0) {
+            try {
+                return Double.parseDouble(((String)o).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+    }
+}
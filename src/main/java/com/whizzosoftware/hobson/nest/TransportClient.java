@@ -0,0 +1,457 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2014 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.nest;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A minimal HTTP/1.1 client for the Nest transport API that keeps persistent connections to each transport host so
+ * that polls and writes don't pay for a new TCP and TLS handshake every time. Requests are sent asynchronously on a
+ * dedicated thread and the result is passed to a Listener.
+ *
+ * @author Dan Noguerol
+ */
+public class TransportClient {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int QUEUE_CAPACITY = 8;
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+    static final int MAX_LINE_LENGTH = 8192;
+    static final int MAX_HEADER_COUNT = 100;
+    static final int MAX_BODY_SIZE = 4 * 1024 * 1024;
+
+    private final Listener listener;
+    private final int maxIdleConnections;
+    private final long idleTimeout;
+    private final int readTimeout;
+    private final ThreadPoolExecutor executor;
+    private final Map<String,TransportConnectionPool> pools = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param listener the listener to notify of request results
+     * @param maxIdleConnections the maximum number of idle connections to keep per host
+     * @param idleTimeout the time (in milliseconds) after which an idle connection is closed
+     */
+    public TransportClient(Listener listener, int maxIdleConnections, long idleTimeout) {
+        this(listener, maxIdleConnections, idleTimeout, DEFAULT_READ_TIMEOUT);
+    }
+
+    TransportClient(Listener listener, int maxIdleConnections, long idleTimeout, int readTimeout) {
+        this.listener = listener;
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTimeout = idleTimeout;
+        this.readTimeout = readTimeout;
+        this.executor = new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+            new DefaultThreadFactory("nest-transport", true),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Queues a request to be sent.
+     *
+     * @param uri the request URI
+     * @param method the request method
+     * @param headers the request headers (or null)
+     * @param entity the request body (or null)
+     * @param context the context to pass to the listener
+     */
+    public void sendRequest(final URI uri, final String method, final Map<String,String> headers, final byte[] entity, final Object context) {
+        pending.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Response response = execute(uri, method, headers, entity);
+                        listener.onTransportResponse(response.getStatusCode(), response.getBody(), context);
+                    } catch (Throwable t) {
+                        listener.onTransportFailure(t, context);
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            listener.onTransportFailure(e, context);
+        }
+    }
+
+    /**
+     * Returns the number of requests that are queued or in progress.
+     *
+     * @return an int
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Closes connections that have been idle longer than the idle timeout.
+     */
+    public void evictIdle() {
+        for (TransportConnectionPool pool : pools.values()) {
+            pool.evictIdle();
+        }
+    }
+
+    /**
+     * Logs connection reuse statistics for each transport host.
+     */
+    public void logStatistics() {
+        for (TransportConnectionPool pool : pools.values()) {
+            long acquires = pool.getAcquireCount();
+            long hits = pool.getHitCount();
+            logger.debug(
+                "Connection pool {}:{}: {} requests, {} reused ({}%), {} handshakes, {} evicted, {} idle",
+                pool.getHost(),
+                pool.getPort(),
+                acquires,
+                hits,
+                acquires > 0 ? hits * 100 / acquires : 0,
+                pool.getHandshakeCount(),
+                pool.getEvictionCount(),
+                pool.getIdleCount()
+            );
+        }
+    }
+
+    /**
+     * Stops sending requests and closes all connections.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        for (TransportConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    private Response execute(URI uri, String method, Map<String,String> headers, byte[] entity) throws IOException {
+        TransportConnectionPool pool = getPool(uri);
+        // each idle connection could turn out to be stale so allow for all of them plus a new one
+        for (int i = 0; i < maxIdleConnections; i++) {
+            try {
+                return execute(pool, pool.acquire(), uri, method, headers, entity);
+            } catch (StaleConnectionException e) {
+                // the server closed an idle connection before we could detect it so try again
+                logger.debug("Pooled connection to {} was closed by server; retrying", uri.getHost());
+            }
+        }
+        return execute(pool, pool.acquire(), uri, method, headers, entity);
+    }
+
+    private Response execute(TransportConnectionPool pool, TransportConnectionPool.Connection c, URI uri, String method, Map<String,String> headers, byte[] entity) throws IOException {
+        boolean reusable = false;
+        try {
+            InputStream in = c.getInputStream();
+
+            // a failed write on a pooled connection means the server closed it and never saw the request
+            try {
+                writeRequest(c.getOutputStream(), uri, method, headers, entity);
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                if (c.isReused()) {
+                    throw new StaleConnectionException(e);
+                }
+                throw e;
+            }
+
+            // an immediate EOF on a pooled connection means the server closed it before reading the request; only
+            // retry if the request is safe to send twice since we can't be sure it wasn't processed
+            String statusLine = readLine(in);
+            if (statusLine == null) {
+                if (c.isReused() && isIdempotent(method)) {
+                    throw new StaleConnectionException(null);
+                }
+                throw new EOFException("Connection closed before a response was received");
+            }
+
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid HTTP status line: " + statusLine);
+            }
+            int statusCode;
+            try {
+                statusCode = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid HTTP status line: " + statusLine);
+            }
+
+            // read the response headers
+            Map<String,String> responseHeaders = new HashMap<>();
+            String line;
+            int headerCount = 0;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                int ix = line.indexOf(':');
+                if (++headerCount > MAX_HEADER_COUNT) {
+                    throw new IOException("Response exceeds maximum of " + MAX_HEADER_COUNT + " headers");
+                }
+                if (ix > 0) {
+                    responseHeaders.put(line.substring(0, ix).trim().toLowerCase(), line.substring(ix + 1).trim());
+                }
+            }
+            if (line == null) {
+                throw new EOFException("Connection closed while reading response headers");
+            }
+
+            // read the response body
+            String connection = responseHeaders.get("connection");
+            boolean keepAlive = "HTTP/1.1".equals(parts[0]) ? !"close".equalsIgnoreCase(connection) : "keep-alive".equalsIgnoreCase(connection);
+            String transferEncoding = responseHeaders.get("transfer-encoding");
+            String contentLength = responseHeaders.get("content-length");
+            byte[] body;
+            if ("HEAD".equals(method) || statusCode / 100 == 1 || statusCode == 204 || statusCode == 304) {
+                body = new byte[0];
+            } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+                body = readChunked(in);
+            } else if (contentLength != null) {
+                long length;
+                try {
+                    length = Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length: " + contentLength);
+                }
+                if (length < 0 || length > MAX_BODY_SIZE) {
+                    throw new IOException("Response body of " + length + " bytes exceeds maximum of " + MAX_BODY_SIZE);
+                }
+                body = readFully(in, (int)length);
+            } else {
+                // the body is delimited by the server closing the connection
+                body = readToEnd(in);
+                keepAlive = false;
+            }
+            reusable = keepAlive;
+
+            return new Response(statusCode, new String(decode(body, responseHeaders.get("content-encoding")), UTF8));
+        } finally {
+            pool.release(c, reusable);
+        }
+    }
+
+    private void writeRequest(OutputStream out, URI uri, String method, Map<String,String> headers, byte[] entity) throws IOException {
+        String path = uri.getRawPath();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(uri.getHost());
+        if (uri.getPort() > -1) {
+            sb.append(':').append(uri.getPort());
+        }
+        sb.append("\r\n");
+        sb.append("Connection: keep-alive\r\n");
+        if (headers != null) {
+            for (Map.Entry<String,String> e : headers.entrySet()) {
+                String name = e.getKey();
+                if (!"host".equalsIgnoreCase(name) && !"connection".equalsIgnoreCase(name) && !"content-length".equalsIgnoreCase(name)) {
+                    sb.append(name).append(": ").append(e.getValue()).append("\r\n");
+                }
+            }
+        }
+        if (entity != null) {
+            sb.append("Content-Length: ").append(entity.length).append("\r\n");
+        }
+        sb.append("\r\n");
+
+        out.write(sb.toString().getBytes(UTF8));
+        if (entity != null) {
+            out.write(entity);
+        }
+        out.flush();
+    }
+
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            } else if (b != '\r') {
+                if (baos.size() >= MAX_LINE_LENGTH) {
+                    throw new IOException("Response line exceeds maximum length of " + MAX_LINE_LENGTH);
+                }
+                baos.write(b);
+            }
+        }
+        if (b == -1 && baos.size() == 0) {
+            return null;
+        }
+        return new String(baos.toByteArray(), UTF8);
+    }
+
+    private byte[] readChunked(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        while (true) {
+            String line = readLine(in);
+            if (line == null) {
+                throw new EOFException("Connection closed while reading chunked response");
+            }
+            int ix = line.indexOf(';');
+            int size;
+            try {
+                size = Integer.parseInt((ix > -1 ? line.substring(0, ix) : line).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size: " + line);
+            }
+            if (size < 0 || size > MAX_BODY_SIZE - baos.size()) {
+                throw new IOException("Chunked response body exceeds maximum of " + MAX_BODY_SIZE);
+            }
+            if (size == 0) {
+                // consume any trailers
+                while ((line = readLine(in)) != null && line.length() > 0) {}
+                return baos.toByteArray();
+            }
+            baos.write(readFully(in, size));
+            readLine(in);
+        }
+    }
+
+    private byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] buf = new byte[length];
+        int off = 0;
+        while (off < length) {
+            int n = in.read(buf, off, length - off);
+            if (n == -1) {
+                throw new EOFException("Connection closed while reading response body");
+            }
+            off += n;
+        }
+        return buf;
+    }
+
+    private byte[] readToEnd(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            if (n > MAX_BODY_SIZE - baos.size()) {
+                throw new IOException("Response body exceeds maximum of " + MAX_BODY_SIZE);
+            }
+            baos.write(buf, 0, n);
+        }
+        return baos.toByteArray();
+    }
+
+    private byte[] decode(byte[] body, String contentEncoding) throws IOException {
+        if (body.length > 0 && contentEncoding != null) {
+            InputStream in;
+            if ("gzip".equalsIgnoreCase(contentEncoding)) {
+                in = new GZIPInputStream(new ByteArrayInputStream(body));
+            } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+                in = new InflaterInputStream(new ByteArrayInputStream(body));
+            } else {
+                return body;
+            }
+            try {
+                return readToEnd(in);
+            } finally {
+                in.close();
+            }
+        }
+        return body;
+    }
+
+    private boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "DELETE".equals(method) || "OPTIONS".equals(method);
+    }
+
+    private TransportConnectionPool getPool(URI uri) {
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() > -1 ? uri.getPort() : (secure ? 443 : 80);
+        String key = uri.getScheme().toLowerCase() + "://" + uri.getHost().toLowerCase() + ":" + port;
+        synchronized (pools) {
+            TransportConnectionPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new TransportConnectionPool(uri.getHost(), port, secure, maxIdleConnections, idleTimeout, readTimeout);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * A response received from the transport host.
+     */
+    public static class Response {
+        private int statusCode;
+        private String body;
+
+        public Response(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Interface for classes that want to be notified of request results. Callbacks are made on the transport thread.
+     */
+    public interface Listener {
+        void onTransportResponse(int statusCode, String body, Object context);
+        void onTransportFailure(Throwable cause, Object context);
+    }
+
+    /**
+     * Thrown when a pooled connection turns out to have been closed by the server before the request was processed.
+     */
+    private static class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException(Throwable cause) {
+            super("Pooled connection was closed by server", cause);
+        }
+    }
+}
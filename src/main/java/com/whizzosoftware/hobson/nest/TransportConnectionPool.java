@@ -0,0 +1,303 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2014 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.nest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A small pool of persistent connections to a single host. Idle connections are health checked before they are
+ * reused and are closed once they have been idle for too long.
+ *
+ * @author Dan Noguerol
+ */
+public class TransportConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(TransportConnectionPool.class);
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final int maxIdleConnections;
+    private final long idleTimeout;
+    private final int readTimeout;
+    private final LinkedList<Connection> idleConnections = new LinkedList<>();
+
+    private long acquireCount;
+    private long hitCount;
+    private long handshakeCount;
+    private long evictionCount;
+
+    /**
+     * Constructor.
+     *
+     * @param host the host to connect to
+     * @param port the port to connect to
+     * @param secure whether to use TLS
+     * @param maxIdleConnections the maximum number of idle connections to keep
+     * @param idleTimeout the time (in milliseconds) after which an idle connection is closed
+     * @param readTimeout the time (in milliseconds) to wait for data before a read fails
+     */
+    public TransportConnectionPool(String host, int port, boolean secure, int maxIdleConnections, long idleTimeout, int readTimeout) {
+        this.host = host;
+        this.port = port;
+        this.secure = secure;
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTimeout = idleTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns a healthy idle connection if one is available or opens a new one.
+     *
+     * @return a Connection
+     *
+     * @throws IOException on failure
+     */
+    public Connection acquire() throws IOException {
+        synchronized (this) {
+            acquireCount++;
+        }
+
+        while (true) {
+            // take the candidate out of the pool first so the health check doesn't block other callers
+            Connection c;
+            synchronized (this) {
+                c = idleConnections.pollFirst();
+            }
+            if (c == null) {
+                return open();
+            }
+
+            if (System.currentTimeMillis() - c.lastUsed < idleTimeout && c.isHealthy()) {
+                synchronized (this) {
+                    hitCount++;
+                }
+                c.reused = true;
+                return c;
+            }
+
+            synchronized (this) {
+                evictionCount++;
+            }
+            c.close();
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param c the connection
+     * @param reusable whether the connection can be used for another request
+     */
+    public void release(Connection c, boolean reusable) {
+        if (reusable) {
+            c.lastUsed = System.currentTimeMillis();
+            c.reused = false;
+            synchronized (this) {
+                if (idleConnections.size() < maxIdleConnections) {
+                    idleConnections.addFirst(c);
+                    return;
+                }
+            }
+        }
+        c.close();
+    }
+
+    /**
+     * Closes any connections that have been idle longer than the idle timeout.
+     */
+    public void evictIdle() {
+        List<Connection> stale = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            Iterator<Connection> it = idleConnections.iterator();
+            while (it.hasNext()) {
+                Connection c = it.next();
+                if (now - c.lastUsed >= idleTimeout) {
+                    it.remove();
+                    stale.add(c);
+                    evictionCount++;
+                }
+            }
+        }
+
+        closeAll(stale);
+    }
+
+    /**
+     * Closes all idle connections.
+     */
+    public void close() {
+        List<Connection> all;
+        synchronized (this) {
+            all = new ArrayList<>(idleConnections);
+            idleConnections.clear();
+        }
+        closeAll(all);
+    }
+
+    public synchronized long getAcquireCount() {
+        return acquireCount;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of new connections that have been opened (and, for secure connections, TLS handshakes
+     * that have been performed).
+     *
+     * @return a long
+     */
+    public synchronized long getHandshakeCount() {
+        return handshakeCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    private Connection open() throws IOException {
+        logger.debug("Opening new connection to {}:{}", host, port);
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket.setSoTimeout(readTimeout);
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(true);
+            if (secure) {
+                SSLSocket ssl = (SSLSocket)((SSLSocketFactory)SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+                // raw SSL sockets don't verify the host name so it must be turned on explicitly
+                SSLParameters params = ssl.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(params);
+                ssl.startHandshake();
+                socket = ssl;
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        synchronized (this) {
+            handshakeCount++;
+        }
+
+        return new Connection(socket, readTimeout);
+    }
+
+    private void closeAll(List<Connection> connections) {
+        for (Connection c : connections) {
+            c.close();
+        }
+    }
+
+    /**
+     * A single persistent connection.
+     */
+    public static class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final int readTimeout;
+        private long lastUsed;
+        private boolean reused;
+
+        Connection(Socket socket, int readTimeout) throws IOException {
+            this.socket = socket;
+            this.readTimeout = readTimeout;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        /**
+         * Indicates whether this connection was taken from the idle pool rather than newly opened.
+         *
+         * @return a boolean
+         */
+        public boolean isReused() {
+            return reused;
+        }
+
+        /**
+         * Checks that the remote end hasn't closed the connection while it was idle. An idle connection should
+         * have nothing to read so anything other than a read timeout means it can't be reused.
+         *
+         * @return true if the connection can be reused
+         */
+        boolean isHealthy() {
+            if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+                return false;
+            }
+            try {
+                socket.setSoTimeout(1);
+                try {
+                    in.read();
+                    return false;
+                } catch (SocketTimeoutException e) {
+                    return true;
+                } finally {
+                    socket.setSoTimeout(readTimeout);
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.trace("Error closing connection", e);
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@ public class Structure {
     public String postalCode;
     public String user;
     private String[] devices;
+    private String[] deviceIds;
     public String[] swarm;
 
     public Structure(JSONObject json) {
@@ -26,8 +27,10 @@ public class Structure {
 
         JSONArray ja = json.getJSONArray("devices");
         devices = new String[ja.length()];
+        deviceIds = new String[ja.length()];
         for (int i=0; i < ja.length(); i++) {
             devices[i] = ja.getString(i);
+            deviceIds[i] = devices[i].startsWith("device.") ? devices[i].substring(7) : devices[i];
         }
 
         ja = json.getJSONArray("swarm");
@@ -57,6 +60,15 @@ public class Structure {
         return devices;
     }
 
+    /**
+     * Returns the structure's device IDs with the "device." prefix removed.
+     *
+     * @return an array of device IDs
+     */
+    public String[] getDeviceIds() {
+        return deviceIds;
+    }
+
     public String[] getSwarm() {
         return swarm;
     }
@@ -0,0 +1,127 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2014 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.nest;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ThermostatEvaluatorTest {
+    private static final long MINUTE = 60000;
+    private static final ThermostatThresholds NO_THRESHOLDS = new ThermostatThresholds(null, null, null, null);
+
+    @Test
+    public void testFirstSample() {
+        ThermostatEvaluator e = new ThermostatEvaluator();
+        Set<ThermostatEvaluator.Rule> tripped = e.update(0, 20.0, false, new ThermostatThresholds(25.0, 15.0, 0.5, 10.0));
+        assertTrue(tripped.isEmpty());
+        assertEquals(1, e.getSampleCount());
+        assertEquals(20.0, e.getMin(), 0.0001);
+        assertEquals(20.0, e.getMax(), 0.0001);
+        assertEquals(20.0, e.getMean(), 0.0001);
+        assertEquals(0.0, e.getRateOfChange(), 0.0001);
+        assertEquals(0, e.getTargetPendingTime(0));
+    }
+
+    @Test
+    public void testNoSamples() {
+        ThermostatEvaluator e = new ThermostatEvaluator();
+        assertTrue(Double.isNaN(e.getMin()));
+        assertTrue(Double.isNaN(e.getMax()));
+        assertTrue(Double.isNaN(e.getMean()));
+    }
+
+    @Test
+    public void testRollingWindow() {
+        ThermostatEvaluator e = new ThermostatEvaluator(3);
+        e.update(0, 30.0, false, NO_THRESHOLDS);
+        e.update(MINUTE, 20.0, false, NO_THRESHOLDS);
+        e.update(2 * MINUTE, 22.0, false, NO_THRESHOLDS);
+        assertEquals(20.0, e.getMin(), 0.0001);
+        assertEquals(30.0, e.getMax(), 0.0001);
+        assertEquals(24.0, e.getMean(), 0.0001);
+
+        // the 30.0 sample falls out of the window
+        e.update(3 * MINUTE, 21.0, false, NO_THRESHOLDS);
+        assertEquals(20.0, e.getMin(), 0.0001);
+        assertEquals(22.0, e.getMax(), 0.0001);
+        assertEquals(21.0, e.getMean(), 0.0001);
+    }
+
+    @Test
+    public void testRateOfChange() {
+        ThermostatEvaluator e = new ThermostatEvaluator();
+        ThermostatThresholds t = new ThermostatThresholds(null, null, 0.5, null);
+        assertTrue(e.update(0, 20.0, false, t).isEmpty());
+
+        // rising 2 degrees in 2 minutes
+        Set<ThermostatEvaluator.Rule> tripped = e.update(2 * MINUTE, 22.0, false, t);
+        assertEquals(1.0, e.getRateOfChange(), 0.0001);
+        assertTrue(tripped.contains(ThermostatEvaluator.Rule.RATE_OF_CHANGE));
+
+        // falling 11 degrees in 1 minute pulls the smoothed rate negative
+        tripped = e.update(3 * MINUTE, 11.0, false, t);
+        assertEquals(1.0 + 0.2 * (-11.0 - 1.0), e.getRateOfChange(), 0.0001);
+        assertTrue(e.getRateOfChange() < 0);
+        assertTrue(tripped.contains(ThermostatEvaluator.Rule.RATE_OF_CHANGE));
+    }
+
+    @Test
+    public void testRateOfChangeWithinThreshold() {
+        ThermostatEvaluator e = new ThermostatEvaluator();
+        ThermostatThresholds t = new ThermostatThresholds(null, null, 0.5, null);
+        e.update(0, 20.0, false, t);
+        assertTrue(e.update(10 * MINUTE, 21.0, false, t).isEmpty());
+        assertEquals(0.1, e.getRateOfChange(), 0.0001);
+    }
+
+    @Test
+    public void testTargetPendingReset() {
+        ThermostatEvaluator e = new ThermostatEvaluator();
+        ThermostatThresholds t = new ThermostatThresholds(null, null, null, 5.0);
+        assertTrue(e.update(0, 20.0, true, t).isEmpty());
+        assertTrue(e.update(3 * MINUTE, 20.0, true, t).isEmpty());
+        assertEquals(3 * MINUTE, e.getTargetPendingTime(3 * MINUTE));
+        assertTrue(e.update(6 * MINUTE, 20.0, true, t).contains(ThermostatEvaluator.Rule.TARGET_PENDING));
+
+        // the pending time resets once the change is no longer pending
+        assertTrue(e.update(7 * MINUTE, 20.0, false, t).isEmpty());
+        assertEquals(0, e.getTargetPendingTime(7 * MINUTE));
+        assertTrue(e.update(8 * MINUTE, 20.0, true, t).isEmpty());
+        assertEquals(MINUTE, e.getTargetPendingTime(9 * MINUTE));
+    }
+
+    @Test
+    public void testTemperatureThresholds() {
+        ThermostatEvaluator e = new ThermostatEvaluator();
+        ThermostatThresholds t = new ThermostatThresholds(25.0, 15.0, null, null);
+        assertTrue(e.update(0, 26.0, false, t).contains(ThermostatEvaluator.Rule.MAX_TEMPERATURE));
+        assertTrue(e.update(MINUTE, 14.0, false, t).contains(ThermostatEvaluator.Rule.MIN_TEMPERATURE));
+        assertTrue(e.update(2 * MINUTE, 20.0, false, t).isEmpty());
+    }
+
+    @Test
+    public void testNullThresholds() {
+        ThermostatEvaluator e = new ThermostatEvaluator();
+        assertTrue(e.update(0, 50.0, true, null).isEmpty());
+        assertTrue(e.update(MINUTE, -10.0, true, NO_THRESHOLDS).isEmpty());
+        assertTrue(e.update(100 * MINUTE, 50.0, true, NO_THRESHOLDS).isEmpty());
+        assertEquals(3, e.getSampleCount());
+    }
+
+    @Test
+    public void testNullTemperature() {
+        ThermostatEvaluator e = new ThermostatEvaluator();
+        assertTrue(e.update(0, null, false, new ThermostatThresholds(25.0, 15.0, 0.5, null)).isEmpty());
+        assertEquals(0, e.getSampleCount());
+    }
+}
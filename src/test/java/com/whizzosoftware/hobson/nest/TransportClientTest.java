@@ -0,0 +1,418 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2014 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.nest;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class TransportClientTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testContentLengthBody() throws Exception {
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+                return true;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("hello", listener.nextResponse().getBody());
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testChunkedBody() throws Exception {
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                write(out, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3;ext=1\r\nhel\r\n2\r\nlo\r\n0\r\nX-Trailer: foo\r\n\r\n");
+                return true;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("hello", listener.nextResponse().getBody());
+            assertEquals("hello", listener.nextResponse().getBody());
+            // the trailer must have been consumed for the connection to be reused
+            assertEquals(1, server.getConnectionCount());
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testConnectionCloseDelimitedBody() throws Exception {
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                write(out, "HTTP/1.1 200 OK\r\n\r\nhello");
+                return false;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("hello", listener.nextResponse().getBody());
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("hello", listener.nextResponse().getBody());
+            assertEquals(2, server.getConnectionCount());
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testGzipBody() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(baos);
+        gz.write("{\"hello\":\"world\"}".getBytes(UTF8));
+        gz.close();
+        final byte[] body = baos.toByteArray();
+
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                write(out, "HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\nContent-Length: " + body.length + "\r\n\r\n");
+                out.write(body);
+                return true;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("{\"hello\":\"world\"}", listener.nextResponse().getBody());
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+                return true;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            for (int i = 0; i < 3; i++) {
+                client.sendRequest(server.getURI(), "GET", null, null, "test");
+                assertEquals(200, listener.nextResponse().getStatusCode());
+            }
+            assertEquals(1, server.getConnectionCount());
+            assertEquals(3, server.getRequestCount());
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testStaleConnectionRetry() throws Exception {
+        // the second request on the first connection is dropped without a response
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                if (connection == 0 && request == 1) {
+                    return false;
+                }
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+                return true;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("ok", listener.nextResponse().getBody());
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("ok", listener.nextResponse().getBody());
+            assertEquals(2, server.getConnectionCount());
+            assertEquals(3, server.getRequestCount());
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testNoRetryForNonIdempotentRequest() throws Exception {
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                if (connection == 0 && request == 1) {
+                    return false;
+                }
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+                return true;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("ok", listener.nextResponse().getBody());
+            client.sendRequest(server.getURI(), "POST", null, "{}".getBytes(UTF8), "test");
+            assertTrue(listener.nextFailure() instanceof EOFException);
+            assertEquals(1, server.getConnectionCount());
+            assertEquals(2, server.getRequestCount());
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testNoRetryOnReadTimeout() throws Exception {
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                if (request == 1) {
+                    Thread.sleep(1000);
+                    return false;
+                }
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+                return true;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000, 250);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertEquals("ok", listener.nextResponse().getBody());
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertTrue(listener.nextFailure() instanceof SocketTimeoutException);
+            assertEquals(1, server.getConnectionCount());
+            assertEquals(2, server.getRequestCount());
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testBodyTooLarge() throws Exception {
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: " + (TransportClient.MAX_BODY_SIZE + 1) + "\r\n\r\n");
+                return false;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertTrue(listener.nextFailure().getMessage().contains("exceeds maximum"));
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testLineTooLong() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= TransportClient.MAX_LINE_LENGTH; i++) {
+            sb.append('x');
+        }
+        TestServer server = new TestServer(new Responder() {
+            @Override
+            public boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception {
+                write(out, "HTTP/1.1 200 OK\r\nX-Long: " + sb + "\r\nContent-Length: 2\r\n\r\nok");
+                return false;
+            }
+        });
+        try {
+            TestListener listener = new TestListener();
+            TransportClient client = new TransportClient(listener, 2, 60000);
+            client.sendRequest(server.getURI(), "GET", null, null, "test");
+            assertTrue(listener.nextFailure().getMessage().contains("exceeds maximum"));
+            client.shutdown();
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void write(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(UTF8));
+    }
+
+    /**
+     * Produces the response to a single request. Returning false closes the connection.
+     */
+    private interface Responder {
+        boolean respond(int connection, int request, String requestLine, OutputStream out) throws Exception;
+    }
+
+    /**
+     * Collects the results of requests sent by the client.
+     */
+    private static class TestListener implements TransportClient.Listener {
+        private final BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onTransportResponse(int statusCode, String body, Object context) {
+            results.add(new TransportClient.Response(statusCode, body));
+        }
+
+        @Override
+        public void onTransportFailure(Throwable cause, Object context) {
+            results.add(cause);
+        }
+
+        TransportClient.Response nextResponse() throws InterruptedException {
+            Object o = results.poll(5, TimeUnit.SECONDS);
+            if (!(o instanceof TransportClient.Response)) {
+                fail("Expected response but got: " + o);
+            }
+            return (TransportClient.Response)o;
+        }
+
+        Throwable nextFailure() throws InterruptedException {
+            Object o = results.poll(5, TimeUnit.SECONDS);
+            if (!(o instanceof Throwable)) {
+                fail("Expected failure but got: " + o);
+            }
+            return (Throwable)o;
+        }
+    }
+
+    /**
+     * A minimal HTTP server that reads requests on each accepted connection and passes them to a Responder.
+     */
+    private static class TestServer implements Runnable {
+        private final ServerSocket serverSocket;
+        private final Responder responder;
+        private final AtomicInteger connectionCount = new AtomicInteger();
+        private final AtomicInteger requestCount = new AtomicInteger();
+
+        TestServer(Responder responder) throws IOException {
+            this.serverSocket = new ServerSocket(0);
+            this.responder = responder;
+            Thread t = new Thread(this);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        URI getURI() throws Exception {
+            return new URI("http://127.0.0.1:" + serverSocket.getLocalPort() + "/test");
+        }
+
+        int getConnectionCount() {
+            return connectionCount.get();
+        }
+
+        int getRequestCount() {
+            return requestCount.get();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    final int connection = connectionCount.getAndIncrement();
+                    Thread t = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            handle(socket, connection);
+                        }
+                    });
+                    t.setDaemon(true);
+                    t.start();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void handle(Socket socket, int connection) {
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                for (int request = 0; ; request++) {
+                    String requestLine = readLine(in);
+                    if (requestLine == null) {
+                        break;
+                    }
+                    int contentLength = 0;
+                    String line;
+                    while ((line = readLine(in)) != null && line.length() > 0) {
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                    }
+                    for (int i = 0; i < contentLength; i++) {
+                        in.read();
+                    }
+                    requestCount.incrementAndGet();
+                    boolean keepOpen = responder.respond(connection, request, requestLine, out);
+                    out.flush();
+                    if (!keepOpen) {
+                        break;
+                    }
+                }
+            } catch (Exception ignored) {
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private String readLine(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                if (b != '\r') {
+                    sb.append((char)b);
+                }
+            }
+            return (b == -1 && sb.length() == 0) ? null : sb.toString();
+        }
+    }
+}